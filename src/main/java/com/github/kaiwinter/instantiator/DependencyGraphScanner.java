@@ -0,0 +1,241 @@
+package com.github.kaiwinter.instantiator;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.reflections.Reflections;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.reflections.util.FilterBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.kaiwinter.instantiator.LookupContext.PackageScope;
+
+/**
+ * Scanner for {@link PackageScope#DEPENDENCY_GRAPH}. Instead of scanning a fixed scope up front the scan set is derived from the
+ * object graph: for every interface which needs an implementation only the classpath entries of the interface and of the class
+ * declaring the field are scanned, restricted to the common package of both. If there is no implementation in this scope the search
+ * is widened step by step to the parent packages, the whole classpath entries and finally the whole classpath. Scan results are accumulated so every scan unit (a classpath entry and a package) is scanned at
+ * most once.
+ */
+final class DependencyGraphScanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DependencyGraphScanner.class);
+
+    /** Scan units (classpath entry and package) which were scanned already. */
+    private final Set<String> scannedUnits = new HashSet<>();
+
+    /** Estimated sizes of the scan results of the scan units when they were scanned. */
+    private final Map<String, Long> scannedUnit2Size = new HashMap<>();
+
+    /** Estimates the sizes of the scan results. */
+    private final ObjectSizeEstimator objectSizeEstimator = new ObjectSizeEstimator();
+
+    /** Cached sub types by the type and the scope they were searched in. */
+    private final Map<String, Set<Class<?>>> scope2SubTypes = new HashMap<>();
+
+    /** Accumulated scan results of all scanned units. */
+    private Reflections reflections;
+
+    /** <code>true</code> if all classpath entries were scanned completely. */
+    private boolean wholeClasspathScanned;
+
+    /**
+     * Returns the implementing classes of <code>type</code> which can be found in the scope of the dependency from
+     * <code>dependent</code> to <code>type</code>. The search starts in the common package of both classes in their classpath entries
+     * and is widened step by step to the parent packages, the whole classpath entries and finally the whole classpath until an
+     * implementation is found. Not yet scanned parts of a scope are scanned before it is searched.
+     *
+     * @param type
+     *            the type to find sub types of
+     * @param dependent
+     *            the class which declares the field of <code>type</code>
+     * @return the implementing classes of <code>type</code>
+     */
+    Set<Class<?>> getSubTypesOf(Class<?> type, Class<?> dependent) {
+        List<URL> classpathEntries = new ArrayList<>();
+        URL typeEntry = ClasspathHelper.forClass(type);
+        if (isScannable(typeEntry)) {
+            classpathEntries.add(typeEntry);
+        }
+        URL dependentEntry = ClasspathHelper.forClass(dependent);
+        if (isScannable(dependentEntry) && !containsEntry(classpathEntries, dependentEntry)) {
+            classpathEntries.add(dependentEntry);
+        }
+
+        // If the type can't be scanned (e.g. JDK interfaces) its implementations are searched near the dependent
+        String packageName = isScannable(typeEntry) ? getCommonPackage(type, dependent) : getPackageName(dependent);
+        while (true) {
+            String scopeKey = type.getName() + " in package '" + packageName + "' of " + classpathEntries;
+            Set<Class<?>> subTypes = scope2SubTypes.get(scopeKey);
+            if (subTypes == null) {
+                for (URL classpathEntry : classpathEntries) {
+                    scan(classpathEntry, packageName);
+                }
+                subTypes = getImplementations(type, packageName, classpathEntries);
+                scope2SubTypes.put(scopeKey, subTypes);
+            }
+            if (!subTypes.isEmpty()) {
+                return new HashSet<>(subTypes);
+            }
+            if (packageName.isEmpty()) {
+                break;
+            }
+            LOGGER.trace("No implementation of {} found in package '{}' of {}, searching parent package", type, packageName,
+                    classpathEntries);
+            packageName = getParentPackage(packageName);
+        }
+
+        LOGGER.warn("No implementation of {} found in {}, searching the whole classpath", type, classpathEntries);
+        scanWholeClasspath();
+        return getImplementations(type, "", null);
+    }
+
+    /**
+     * @return the scan units (classpath entry and package) which were scanned
+     */
+    Set<String> getScannedUnits() {
+        return scannedUnits;
+    }
+
+    /**
+     * Returns the implementing classes of <code>type</code> in the accumulated scan results which are contained in the package
+     * <code>packageName</code> and its sub packages and in one of the <code>classpathEntries</code> (any if <code>null</code>).
+     */
+    /**
+     * @return the estimated sizes of the scan results by scan unit (classpath entry and package), taken when the unit was scanned
+     */
+    Map<String, Long> getScannedUnitSizes() {
+        return scannedUnit2Size;
+    }
+
+    private Set<Class<?>> getImplementations(Class<?> type, String packageName, List<URL> classpathEntries) {
+        Set<Class<?>> implementations = new HashSet<>();
+        if (reflections == null) {
+            return implementations;
+        }
+        // The accumulated scan results contain classes of other scopes as well
+        for (Class<?> subType : reflections.getSubTypesOf(type)) {
+            if (subType.isInterface() || !isInPackage(getPackageName(subType), packageName)) {
+                continue;
+            }
+            if (classpathEntries == null || containsEntry(classpathEntries, ClasspathHelper.forClass(subType))) {
+                implementations.add(subType);
+            }
+        }
+        return implementations;
+    }
+
+    private void scanWholeClasspath() {
+        if (wholeClasspathScanned) {
+            return;
+        }
+        Set<URL> classpathEntries = new LinkedHashSet<>(ClasspathHelper.forPackage(""));
+        classpathEntries.addAll(ClasspathHelper.forJavaClassPath());
+        for (URL classpathEntry : classpathEntries) {
+            if (isScannable(classpathEntry)) {
+                scan(classpathEntry, "");
+            }
+        }
+        wholeClasspathScanned = true;
+    }
+
+    private void scan(URL classpathEntry, String packageName) {
+        // A unit of a package contains all units of its sub packages
+        String ancestorPackage = packageName;
+        while (true) {
+            if (scannedUnits.contains(classpathEntry + "!" + ancestorPackage)) {
+                return;
+            }
+            if (ancestorPackage.isEmpty()) {
+                break;
+            }
+            ancestorPackage = getParentPackage(ancestorPackage);
+        }
+        String scanUnit = classpathEntry + "!" + packageName;
+        scannedUnits.add(scanUnit);
+
+        LOGGER.trace("Scanning package '{}' in {}", packageName, classpathEntry);
+        // Expanding super types would load the super classes of every scanned class, including ones of optional dependencies
+        ConfigurationBuilder configuration = new ConfigurationBuilder().setUrls(classpathEntry).setExpandSuperTypes(false);
+        if (!packageName.isEmpty()) {
+            configuration.filterInputsBy(new FilterBuilder().includePackage(packageName + "."));
+        }
+        Reflections scanned = new Reflections(configuration);
+        // The size can only be told apart before the results are merged
+        scannedUnit2Size.put(scanUnit,
+                objectSizeEstimator.estimate(scanned.getStore(), Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>())));
+        if (reflections == null) {
+            reflections = scanned;
+        } else {
+            reflections.merge(scanned);
+        }
+    }
+
+    /**
+     * Reflections can read directories and jar files only, the JDK's own classes (<code>jrt:</code>) aren't scanned.
+     */
+    private static boolean isScannable(URL classpathEntry) {
+        return classpathEntry != null && ("file".equals(classpathEntry.getProtocol()) || "jar".equals(classpathEntry.getProtocol()));
+    }
+
+    private static boolean containsEntry(List<URL> classpathEntries, URL classpathEntry) {
+        if (classpathEntry == null) {
+            return false;
+        }
+        for (URL entry : classpathEntries) {
+            if (isSameEntry(entry, classpathEntry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInPackage(String packageName, String parentPackage) {
+        return parentPackage.isEmpty() || packageName.equals(parentPackage) || packageName.startsWith(parentPackage + ".");
+    }
+
+    private static String getParentPackage(String packageName) {
+        int lastDot = packageName.lastIndexOf('.');
+        return lastDot == -1 ? "" : packageName.substring(0, lastDot);
+    }
+
+    private static boolean isSameEntry(URL classpathEntry, URL otherClasspathEntry) {
+        // URL.equals() would resolve host names
+        return otherClasspathEntry != null && classpathEntry.toExternalForm().equals(otherClasspathEntry.toExternalForm());
+    }
+
+    /**
+     * Returns the longest package name both classes are contained in (directly or in a sub package).
+     */
+    private static String getCommonPackage(Class<?> type, Class<?> dependent) {
+        String[] typePackage = getPackageName(type).split("\\.");
+        String[] dependentPackage = getPackageName(dependent).split("\\.");
+
+        StringBuilder commonPackage = new StringBuilder();
+        for (int i = 0; i < Math.min(typePackage.length, dependentPackage.length); i++) {
+            if (!typePackage[i].equals(dependentPackage[i])) {
+                break;
+            }
+            if (i > 0) {
+                commonPackage.append('.');
+            }
+            commonPackage.append(typePackage[i]);
+        }
+        return commonPackage.toString();
+    }
+
+    private static String getPackageName(Class<?> clazz) {
+        Package classPackage = clazz.getPackage();
+        return classPackage == null ? "" : classPackage.getName();
+    }
+}
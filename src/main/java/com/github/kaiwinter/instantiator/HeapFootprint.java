@@ -0,0 +1,106 @@
+package com.github.kaiwinter.instantiator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Estimated heap footprint of an {@link InjectionObjectFactory}, see {@link InjectionObjectFactory#estimateHeapFootprint()}. All sizes
+ * are in bytes.
+ * <p>
+ * The retained size of a bean contains the objects which are reachable from this bean only, not passing other cached beans. Objects
+ * which are reachable from several beans are counted as shared size. Objects which are shared by several scan scopes are counted
+ * for each of them, the metadata and total sizes count every object once.
+ * </p>
+ */
+public final class HeapFootprint {
+
+    private final Map<Class<?>, Long> beanSizes;
+    private final long sharedBeanSize;
+    private final Map<String, Long> scanScopeSizes;
+    private final long metadataSize;
+    private final long totalSize;
+
+    HeapFootprint(Map<Class<?>, Long> beanSizes, long sharedBeanSize, Map<String, Long> scanScopeSizes, long metadataSize,
+            long totalSize) {
+        this.beanSizes = sortBySizeDescending(beanSizes);
+        this.sharedBeanSize = sharedBeanSize;
+        this.scanScopeSizes = sortBySizeDescending(scanScopeSizes);
+        this.metadataSize = metadataSize;
+        this.totalSize = totalSize;
+    }
+
+    /**
+     * @return the estimated retained sizes of the cached beans by the (first) type they are cached for, largest first
+     */
+    public Map<Class<?>, Long> getBeanSizes() {
+        return beanSizes;
+    }
+
+    /**
+     * @return the estimated size of the objects which are reachable from several beans
+     */
+    public long getSharedBeanSize() {
+        return sharedBeanSize;
+    }
+
+    /**
+     * @return the estimated sizes of the scan results used to look up implementations by the package they were scanned for, largest
+     *         first. For {@link LookupContext.PackageScope#DEPENDENCY_GRAPH} by scan unit (<code>classpath entry!package</code>), taken
+     *         when the unit was scanned
+     */
+    public Map<String, Long> getScanScopeSizes() {
+        return scanScopeSizes;
+    }
+
+    /**
+     * @return the estimated size of the factory's own data: scan results, type tables and injection plans
+     */
+    public long getMetadataSize() {
+        return metadataSize;
+    }
+
+    /**
+     * @return the estimated size of the factory's metadata and all cached beans
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append("Total: ").append(totalSize).append(" bytes, metadata: ").append(metadataSize).append(" bytes");
+        report.append(System.lineSeparator()).append("Beans (shared: ").append(sharedBeanSize).append(" bytes):");
+        for (Entry<Class<?>, Long> beanSize : beanSizes.entrySet()) {
+            report.append(System.lineSeparator()).append("  ").append(beanSize.getKey().getName()).append(": ")
+                    .append(beanSize.getValue()).append(" bytes");
+        }
+        report.append(System.lineSeparator()).append("Scan scopes:");
+        for (Entry<String, Long> scanScopeSize : scanScopeSizes.entrySet()) {
+            report.append(System.lineSeparator()).append("  '").append(scanScopeSize.getKey()).append("': ")
+                    .append(scanScopeSize.getValue()).append(" bytes");
+        }
+        return report.toString();
+    }
+
+    private static <K> Map<K, Long> sortBySizeDescending(Map<K, Long> sizes) {
+        List<Entry<K, Long>> entries = new ArrayList<>(sizes.entrySet());
+        Collections.sort(entries, new Comparator<Entry<K, Long>>() {
+            @Override
+            public int compare(Entry<K, Long> entry1, Entry<K, Long> entry2) {
+                return entry2.getValue().compareTo(entry1.getValue());
+            }
+        });
+
+        Map<K, Long> sorted = new LinkedHashMap<>();
+        for (Entry<K, Long> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(sorted);
+    }
+}
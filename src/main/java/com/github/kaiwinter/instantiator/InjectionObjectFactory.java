@@ -2,11 +2,16 @@ package com.github.kaiwinter.instantiator;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
-import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -33,17 +38,32 @@ public final class InjectionObjectFactory {
     @SuppressWarnings("unchecked")
     private static final Class<? extends Annotation>[] DEFAULT_ANNOTATIONS_TO_PROCESS = new Class[] { Inject.class };
 
-    /** Cached instances for classes (or interfaces). */
-    private Map<Class<?>, Object> classOrInterface2Instance = new HashMap<>();
+    /** Type ID which is never assigned, marks a missing type in {@link #implementationIds}. */
+    private static final int NO_TYPE = 0;
+
+    /** Dense IDs of the types known to the factory, IDs index the arrays below. */
+    private Map<Class<?>, Integer> type2Id = new HashMap<>();
+
+    /** Types by their ID. */
+    private Class<?>[] types = new Class<?>[16];
+
+    /** Cached instances for classes (or interfaces) by type ID. */
+    private Object[] classOrInterface2Instance = new Object[16];
+
+    /** Cached injection plans for classes by type ID. */
+    private InjectionPlan[] injectionPlans = new InjectionPlan[16];
+
+    /** Type IDs of the implementations of <b>interfaces</b> by type ID, either set by the user or found by a lookup. */
+    private int[] implementationIds = new int[16];
+
+    /** Cached Types with missing implementations to faster skip them, by type ID. */
+    private boolean[] missingImplementations = new boolean[16];
 
     /** Cached Reflections instances for Packages. (Are used to find implementations of interfaces. */
     private Map<Package, Reflections> package2Reflection = new HashMap<>();
 
-    /** Cached Types with missing implementations to faster skip them. */
-    private Set<Type> missingImplementations = new HashSet<>();
-
-    /** Implementations for <b>interfaces</b> which were set by the user. */
-    private Map<Class<?>, Class<?>> userSetInterface2Class = new HashMap<>();
+    /** Accumulated scan results for {@link PackageScope#DEPENDENCY_GRAPH}. */
+    private DependencyGraphScanner dependencyGraphScanner;
 
     /** Fields annotated with these annotations will be set by the factory. */
     private Set<Class<? extends Annotation>> annotationsToProcess;
@@ -105,134 +125,238 @@ public final class InjectionObjectFactory {
         }
 
         @SuppressWarnings("unchecked")
-        T instance = (T) classOrInterface2Instance.get(clazz);
+        T instance = (T) getInstance(getTypeId(clazz));
+        return instance;
+    }
+
+    /**
+     * Returns an fully initialized instance of the class with the given <code>typeId</code>, instances are cached and re-used.
+     * <p>
+     * The object graph is built without recursion: every instantiated object is pushed on a stack together with its injection plan
+     * and the index of the next field to set. The graph is traversed depth first, so objects are created in the same order as by a
+     * recursive traversal, but the depth of the graph doesn't consume call stack.
+     * </p>
+     */
+    private Object getInstance(int typeId) throws IllegalArgumentException {
+        Object instance = classOrInterface2Instance[typeId];
         if (instance != null) {
             return instance;
         }
+        instance = instantiate(typeId);
+        if (instance == null) {
+            return null;
+        }
+
+        Deque<Construction> constructions = new ArrayDeque<>();
+        constructions.push(newConstruction(instance, typeId));
+        while (!constructions.isEmpty()) {
+            Construction construction = constructions.peek();
+            InjectionPlan injectionPlan = construction.injectionPlan;
+            if (construction.nextField == injectionPlan.fields.length) {
+                constructions.pop();
+                continue;
+            }
+
+            int fieldIndex = construction.nextField++;
+            Field field = injectionPlan.fields[fieldIndex];
+            LOGGER.trace("Trying to set '{}' of type: {}", field.getName(), field.getType());
+
+            int fieldTypeId = injectionPlan.fieldTypeIds[fieldIndex];
+            Object instanceToSet = classOrInterface2Instance[fieldTypeId];
+            if (instanceToSet == null) {
+                int implementationId = getImplementation(injectionPlan, fieldIndex);
+                if (implementationId == NO_TYPE) {
+                    continue;
+                }
+                instanceToSet = classOrInterface2Instance[implementationId];
+                if (instanceToSet == null) {
+                    instanceToSet = instantiate(implementationId);
+                    if (instanceToSet == null) {
+                        continue;
+                    }
+                    // Fields of the new instance are set before the remaining fields of the current one
+                    constructions.push(newConstruction(instanceToSet, implementationId));
+                }
+            }
+
+            try {
+                field.set(construction.instance, instanceToSet);
+            } catch (IllegalArgumentException | IllegalAccessException e) {
+                LOGGER.error("Could not set field {}: ", field.getName(), e);
+            }
+        }
 
+        return instance;
+    }
+
+    /**
+     * Creates the {@link Construction} of the new <code>instance</code> of the class with the given <code>typeId</code>. For
+     * {@link PackageScope#DEPENDENCY_GRAPH} the implementations of all interface fields of the class are looked up at once when its
+     * plan is used first, so the scopes of one declaring class are scanned together before the graph is descended.
+     */
+    private Construction newConstruction(Object instance, int typeId) {
+        InjectionPlan injectionPlan = getInjectionPlan(typeId);
+        if (lookupContext.getPackageScope() == PackageScope.DEPENDENCY_GRAPH && !injectionPlan.implementationsLookedUp) {
+            for (int i = 0; i < injectionPlan.fields.length; i++) {
+                if (injectionPlan.fields[i].getType().isInterface() && classOrInterface2Instance[injectionPlan.fieldTypeIds[i]] == null) {
+                    getImplementationForInterface(injectionPlan, i);
+                }
+            }
+            injectionPlan.implementationsLookedUp = true;
+        }
+        return new Construction(instance, injectionPlan);
+    }
+
+    /**
+     * Creates and caches a new instance of the class with the given <code>typeId</code>. Its fields are not set.
+     *
+     * @return the new instance or <code>null</code> if the class could not be instantiated
+     */
+    private Object instantiate(int typeId) {
+        Class<?> clazz = types[typeId];
+        LOGGER.trace("Processing: {}", clazz);
         try {
-            instance = clazz.newInstance();
-            classOrInterface2Instance.put(clazz, instance);
+            Object instance = clazz.newInstance();
+            classOrInterface2Instance[typeId] = instance;
+            return instance;
         } catch (NoClassDefFoundError | IllegalAccessException | InstantiationException e) {
             LOGGER.error("Could not instantiate class {}", clazz, e);
             // TODO KW: Automatically create mock?
             return null;
         }
+    }
 
-        // Iterate and set annotated fields
-        Field[] declaredFields = clazz.getDeclaredFields();
-        for (Field field : declaredFields) {
-            Annotation[] annotations = field.getDeclaredAnnotations();
-            for (Annotation annotation : annotations) {
+    /**
+     * Returns the {@link InjectionPlan} of the class with the given <code>typeId</code>, it is built on first use.
+     */
+    private InjectionPlan getInjectionPlan(int typeId) {
+        InjectionPlan injectionPlan = injectionPlans[typeId];
+        if (injectionPlan != null) {
+            return injectionPlan;
+        }
+
+        List<Field> fields = new ArrayList<>();
+        for (Field field : types[typeId].getDeclaredFields()) {
+            for (Annotation annotation : field.getDeclaredAnnotations()) {
                 if (annotationsToProcess.contains(annotation.annotationType())) {
-                    LOGGER.trace("Trying to set '{}' of type: {}", field.getName(), field.getType());
-                    setFieldInInstance(instance, field);
+                    fields.add(field);
+                    break;
                 }
             }
         }
 
-        return instance;
+        injectionPlan = new InjectionPlan(fields.size());
+        for (int i = 0; i < injectionPlan.fields.length; i++) {
+            Field field = fields.get(i);
+            field.setAccessible(true);
+            injectionPlan.fields[i] = field;
+            injectionPlan.fieldTypeIds[i] = getTypeId(field.getType());
+        }
+        injectionPlans[typeId] = injectionPlan;
+        return injectionPlan;
     }
 
     /**
-     * Sets the <code>field</code> in the given instance.
-     * <ul>
-     * <li>If the user has set an instance by {@link #setImplementationForClassOrInterface(Class, Object)} this one is set</li>
-     * <li>If the field is an interface type the implementation is looked up. If there is more than one implementation an
-     * IllegalArgumentException is thrown. Use {@link #setImplementationForClassOrInterface(Class, Object)} to denote one.</li>
-     * <li>If field is an class it is used directly.</li> <br/>
-     * The found implementation isn't instantiated directly but gets created by {@link #getInstance(Class)} (recursion).
-     * </ul>
-     *
-     * @param instance
-     *            the object instance containing the field
-     * @param field
-     *            the Field to set
-     * @throws IllegalArgumentException
-     *             if more than one implementation was found
+     * Returns the ID of the given <code>type</code>. Types get the next free ID when they are seen first.
      */
-    private void setFieldInInstance(Object instance, Field field) throws IllegalArgumentException {
-        Object instanceToSet = getInstanceToSet(field);
+    private int getTypeId(Class<?> type) {
+        Integer typeId = type2Id.get(type);
+        if (typeId != null) {
+            return typeId;
+        }
 
-        if (instanceToSet != null) {
-            field.setAccessible(true);
-            try {
-                field.set(instance, instanceToSet);
-            } catch (IllegalArgumentException | IllegalAccessException e) {
-                LOGGER.error("Could not set field {}: ", field.getName(), e);
-            }
+        int newTypeId = type2Id.size() + 1;
+        type2Id.put(type, newTypeId);
+        if (newTypeId == types.length) {
+            int length = types.length * 2;
+            types = Arrays.copyOf(types, length);
+            classOrInterface2Instance = Arrays.copyOf(classOrInterface2Instance, length);
+            injectionPlans = Arrays.copyOf(injectionPlans, length);
+            implementationIds = Arrays.copyOf(implementationIds, length);
+            missingImplementations = Arrays.copyOf(missingImplementations, length);
         }
+        types[newTypeId] = type;
+        return newTypeId;
     }
 
     /**
-     * Looks up an instance for the given <code>field</code>.
+     * Looks up the class to instantiate for the given <code>field</code>.
      * <ul>
-     * <li>If the user has set an instance by {@link #setImplementationForClassOrInterface(Class, Object)} this one is set</li>
      * <li>If the field is an interface type the implementation is looked up. If there is more than one implementation an
      * IllegalArgumentException is thrown. Use {@link #setImplementationForClassOrInterface(Class, Object)} to denote one.</li>
-     * <li>If field is an class it is used directly.</li> <br/>
-     * The found implementation isn't instantiated directly but gets created by {@link #getInstance(Class)} (recursion).
+     * <li>If field is an class it is used directly.</li>
      * </ul>
      * 
-     * @param field
-     *            the Field to set
-     * @return an instance which can be assigned to the field
+     * @param injectionPlan
+     *            the plan containing the field
+     * @param fieldIndex
+     *            the index of the field in the plan
+     * @return the type ID of the class to instantiate or {@link #NO_TYPE} if there is none
      * @throws IllegalArgumentException
      *             if more than one implementation was found
      */
-    private Object getInstanceToSet(Field field) throws IllegalArgumentException {
-        if (classOrInterface2Instance.containsKey(field.getType())) {
-            // Re-use from cache
-            return classOrInterface2Instance.get(field.getType());
-        }
-
-        Class<?> implementation;
+    private int getImplementation(InjectionPlan injectionPlan, int fieldIndex) throws IllegalArgumentException {
+        Field field = injectionPlan.fields[fieldIndex];
+        int typeId = injectionPlan.fieldTypeIds[fieldIndex];
+        int implementationId;
         if (field.getType().isInterface()) {
-            implementation = getImplementationForInterface(field);
+            implementationId = getImplementationForInterface(injectionPlan, fieldIndex);
         } else {
             // Field is a class
             LOGGER.trace("Using class of type as it is an implementing class");
-            implementation = field.getType();
+            implementationId = typeId;
         }
 
-        if (implementation == null) {
+        if (implementationId == NO_TYPE) {
             LOGGER.warn("No implementation found for {}", field.getType());
-            return null;
         }
-
-        Object objectInInstance = getInstance(implementation);
-        return objectInInstance;
+        return implementationId;
     }
 
     /**
+     * @return the type ID of the implementation or {@link #NO_TYPE} if there is none
      * @throws IllegalArgumentException
      *             if more than one implementation was found
      */
-    private Class<?> getImplementationForInterface(Field field) throws IllegalArgumentException {
-        if (userSetInterface2Class.containsKey(field.getType())) {
-            Class<?> userSetClass = userSetInterface2Class.get(field.getType());
-            LOGGER.trace("Using user-set implementation {}", userSetClass);
-            return userSetClass;
+    private int getImplementationForInterface(InjectionPlan injectionPlan, int fieldIndex) throws IllegalArgumentException {
+        Field field = injectionPlan.fields[fieldIndex];
+        int typeId = injectionPlan.fieldTypeIds[fieldIndex];
+        int implementationId = implementationIds[typeId];
+        if (implementationId == NO_TYPE) {
+            // Implementations found in a DEPENDENCY_GRAPH scope, which depends on the declaring class of the field
+            implementationId = injectionPlan.implementationIds[fieldIndex];
+        }
+        if (implementationId != NO_TYPE) {
+            LOGGER.trace("Using known implementation {}", types[implementationId]);
+            return implementationId;
         }
-        if (missingImplementations.contains(field.getType())) {
+        if (missingImplementations[typeId]) {
             LOGGER.trace("Not trying again to find missing implementation, leaving out: {}", field.getName());
-            return null;
+            return NO_TYPE;
         }
 
-        Package typePackage = field.getType().getPackage();
-        Reflections reflections = package2Reflection.get(typePackage);
-        if (reflections == null) {
-            if (lookupContext.getPackageScope() == PackageScope.SUBPACKAGES_ONLY) {
-                reflections = new Reflections(typePackage.getName());
-            } else if (lookupContext.getCustomPackage() != null) {
-                reflections = new Reflections(lookupContext.getCustomPackage());
-            } else {
-                // PackageScope.WHOLE_CLASSPATH
-                reflections = new Reflections("");
+        Set<?> implementations;
+        if (lookupContext.getPackageScope() == PackageScope.DEPENDENCY_GRAPH) {
+            if (dependencyGraphScanner == null) {
+                dependencyGraphScanner = new DependencyGraphScanner();
             }
-            package2Reflection.put(typePackage, reflections);
+            implementations = dependencyGraphScanner.getSubTypesOf(field.getType(), field.getDeclaringClass());
+        } else {
+            Package typePackage = field.getType().getPackage();
+            Reflections reflections = package2Reflection.get(typePackage);
+            if (reflections == null) {
+                if (lookupContext.getPackageScope() == PackageScope.SUBPACKAGES_ONLY) {
+                    reflections = new Reflections(typePackage.getName());
+                } else if (lookupContext.getCustomPackage() != null) {
+                    reflections = new Reflections(lookupContext.getCustomPackage());
+                } else {
+                    // PackageScope.WHOLE_CLASSPATH
+                    reflections = new Reflections("");
+                }
+                package2Reflection.put(typePackage, reflections);
+            }
+            implementations = reflections.getSubTypesOf(field.getType());
         }
-        Set<?> implementations = reflections.getSubTypesOf(field.getType());
         // Filter out interfaces
         for (Iterator<?> iterator = implementations.iterator(); iterator.hasNext();) {
             Object object = iterator.next();
@@ -245,17 +369,82 @@ public final class InjectionObjectFactory {
 
         if (implementations.size() == 1) {
             Class<?> implementation = (Class<?>) implementations.iterator().next();
-            return implementation;
+            implementationId = getTypeId(implementation);
+            if (lookupContext.getPackageScope() == PackageScope.DEPENDENCY_GRAPH) {
+                // The scope of DEPENDENCY_GRAPH depends on the declaring class
+                injectionPlan.implementationIds[fieldIndex] = implementationId;
+            } else {
+                implementationIds[typeId] = implementationId;
+            }
+            return implementationId;
         } else if (implementations.size() == 0) {
             LOGGER.trace("No implementation found, leaving out: {}", field.getName());
-            missingImplementations.add(field.getType());
-            return null;
+            // DEPENDENCY_GRAPH searched the whole classpath before, so the miss doesn't depend on the declaring class
+            missingImplementations[typeId] = true;
+            return NO_TYPE;
         } else {
             throw new IllegalArgumentException(
                     "More then one implementation found for '" + field.getType() + "' define one by calling setImplementingClassForInterface() or setImplementationForClassOrInterface()");
         }
     }
 
+    /**
+     * Estimates the heap held by this factory: the retained size of every cached bean and the size of the scan results used to look
+     * up implementations. The estimate is made by walking the object graphs, so it takes time in the order of the heap held.
+     *
+     * @return the estimated heap footprint
+     * @see HeapFootprint
+     */
+    public HeapFootprint estimateHeapFootprint() {
+        ObjectSizeEstimator estimator = new ObjectSizeEstimator();
+
+        // A bean can be cached for several types, it is reported for the first one
+        Map<Object, Class<?>> bean2Type = new IdentityHashMap<>();
+        for (int typeId = 1; typeId <= type2Id.size(); typeId++) {
+            Object bean = classOrInterface2Instance[typeId];
+            if (bean != null && !bean2Type.containsKey(bean)) {
+                bean2Type.put(bean, types[typeId]);
+            }
+        }
+        Set<Object> beans = bean2Type.keySet();
+
+        Map<Object, Long> retainedSizes = new IdentityHashMap<>();
+        long sharedSize = estimator.estimateRetained(beans, retainedSizes);
+        Map<Class<?>, Long> beanSizes = new HashMap<>();
+        for (Map.Entry<Object, Long> retainedSize : retainedSizes.entrySet()) {
+            beanSizes.put(bean2Type.get(retainedSize.getKey()), retainedSize.getValue());
+        }
+
+        Map<String, Long> scanScopeSizes = new HashMap<>();
+        for (Map.Entry<Package, Reflections> entry : package2Reflection.entrySet()) {
+            String packageName = entry.getKey() == null ? "" : entry.getKey().getName();
+            scanScopeSizes.put(packageName, estimator.estimate(entry.getValue(), newIdentitySet()));
+        }
+        if (dependencyGraphScanner != null) {
+            scanScopeSizes.putAll(dependencyGraphScanner.getScannedUnitSizes());
+        }
+
+        Object[] metadata = { type2Id, types, classOrInterface2Instance, injectionPlans, implementationIds, missingImplementations,
+                package2Reflection, dependencyGraphScanner, annotationsToProcess };
+        long metadataSize = 0;
+        Set<Object> visited = newIdentitySet();
+        visited.addAll(beans);
+        for (Object object : metadata) {
+            metadataSize += estimator.estimate(object, visited);
+        }
+        long totalSize = metadataSize;
+        for (Object bean : beans) {
+            visited.remove(bean);
+            totalSize += estimator.estimate(bean, visited);
+        }
+
+        return new HeapFootprint(beanSizes, sharedSize, scanScopeSizes, metadataSize, totalSize);
+    }
+
+    private static Set<Object> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    }
+
     /**
      * Sets an implementation object for a class or interface which should be used. This overrides the automatic lookup
      * for the given <code>classOrInterface</code> and could be used for injecting mocks.
@@ -271,7 +460,8 @@ public final class InjectionObjectFactory {
             setImplementingClassForInterface(classOrInterface, object.getClass());
         }
         // set object to use for class
-        classOrInterface2Instance.put(classOrInterface, object);
+        int typeId = getTypeId(classOrInterface);
+        classOrInterface2Instance[typeId] = object;
     }
 
     /**
@@ -292,7 +482,41 @@ public final class InjectionObjectFactory {
         if (!interfaceClass.isAssignableFrom(implementationClass)) {
             throw new IllegalArgumentException("The class must implement the interface");
         }
-        userSetInterface2Class.put(interfaceClass, implementationClass);
+        int typeId = getTypeId(interfaceClass);
+        int implementationId = getTypeId(implementationClass);
+        implementationIds[typeId] = implementationId;
+        missingImplementations[typeId] = false;
+    }
+
+    /**
+     * An instance whose fields are being set, {@link #nextField} is the index in the {@link InjectionPlan} of the next field to set.
+     */
+    private static final class Construction {
+        private final Object instance;
+        private final InjectionPlan injectionPlan;
+        private int nextField;
+
+        private Construction(Object instance, InjectionPlan injectionPlan) {
+            this.instance = instance;
+            this.injectionPlan = injectionPlan;
+        }
+    }
+
+    /**
+     * The fields of a class which are set by the factory together with the type IDs of their types and, for
+     * {@link PackageScope#DEPENDENCY_GRAPH}, the type IDs of the implementations found for them.
+     */
+    private static final class InjectionPlan {
+        private final Field[] fields;
+        private final int[] fieldTypeIds;
+        private final int[] implementationIds;
+        private boolean implementationsLookedUp;
+
+        private InjectionPlan(int size) {
+            fields = new Field[size];
+            fieldTypeIds = new int[size];
+            implementationIds = new int[size];
+        }
     }
 
     /**
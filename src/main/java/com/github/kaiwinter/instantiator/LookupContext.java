@@ -1,8 +1,8 @@
 package com.github.kaiwinter.instantiator;
 
 /**
- * Defines in which scope types are looked up. The {@link PackageScope} defines two general ways to lookup classes: either searching the
- * whole classpath or searching in sub packages of the parent type only. In contrast a custom package name can be set to search only in this
+ * Defines in which scope types are looked up. The {@link PackageScope} defines the general ways to lookup classes: searching the whole
+ * classpath, searching in sub packages of the parent type only or searching along the dependency graph. In contrast a custom package name can be set to search only in this
  * package and descendants.
  * 
  * Search for classes as local as possible is a big performance gain (at the first run as we use caching). 
@@ -45,7 +45,18 @@ public class LookupContext {
          * <code>org.package.service</code></b>
          * </p>
          */
-        SUBPACKAGES_ONLY;
+        SUBPACKAGES_ONLY,
+
+        /**
+         * The scan scope is derived from the object graph of the class passed to the factory.
+         * <p>
+         * For each interface field only the classpath entries of the interface and of the class declaring the field are searched,
+         * restricted to the common package of both. If there is no implementation in this scope the search is widened step by
+         * step to the parent packages, the whole classpath entries and finally the whole classpath. Already searched parts are not
+         * searched again, so the scan grows with the object graph and not with the classpath.
+         * </p>
+         */
+        DEPENDENCY_GRAPH;
     }
 
     public PackageScope getPackageScope() {
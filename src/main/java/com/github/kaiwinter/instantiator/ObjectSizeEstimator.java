@@ -0,0 +1,271 @@
+package com.github.kaiwinter.instantiator;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Estimates the heap size of object graphs by walking them by reflection and applying the object layout of a 64 bit JVM with
+ * compressed oops (the default for heaps below 32 GB). Field padding isn't modeled, so the result is an estimate and not an exact
+ * measure.
+ * <p>
+ * The fields of classes which cannot be made accessible (e.g. JDK classes on Java 9 and later) aren't walked. Instead maps and
+ * collections are walked by their public API with a fixed overhead per entry and char sequences are estimated by their length
+ * (assuming Latin-1 compact strings on Java 9 and later).
+ * </p>
+ */
+final class ObjectSizeEstimator {
+
+    private static final int OBJECT_HEADER_SIZE = 12;
+    private static final int ARRAY_HEADER_SIZE = 16;
+    private static final int REFERENCE_SIZE = 4;
+    private static final int OBJECT_ALIGNMENT = 8;
+
+    /** Size of a character in a string, Java 9 and later store Latin-1 strings with one byte per character. */
+    private static final int CHAR_SIZE = System.getProperty("java.specification.version", "1.").startsWith("1.") ? 2 : 1;
+
+    /** Owner of objects which are reachable from several beans. */
+    private static final Object SHARED = new Object();
+
+    /** Estimated overhead per entry of a map or collection whose fields cannot be walked, e.g. a <code>HashMap.Node</code>. */
+    private static final int COLLECTION_ENTRY_SIZE = 32;
+
+    /** Shallow sizes of classes. */
+    private final Map<Class<?>, Long> class2ShallowSize = new HashMap<>();
+
+    /** Accessible reference fields of classes, <code>null</code> for classes whose fields cannot be made accessible. */
+    private final Map<Class<?>, Field[]> class2ReferenceFields = new HashMap<>();
+
+    /**
+     * Estimates the size of all objects which are reachable from <code>root</code> and which are not contained in
+     * <code>visited</code>. The walk doesn't continue at objects in <code>visited</code>, all counted objects are added to it.
+     *
+     * @param root
+     *            the object to start the walk at
+     * @param visited
+     *            identity based set of objects which are not counted
+     * @return the estimated size in bytes
+     */
+    long estimate(Object root, Set<Object> visited) {
+        long size = 0;
+        Deque<Object> pending = new ArrayDeque<>();
+        if (isCounted(root) && visited.add(root)) {
+            pending.push(root);
+        }
+        List<Object> references = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            size += getSize(object);
+            references.clear();
+            addReferences(object, references);
+            for (Object reference : references) {
+                if (visited.add(reference)) {
+                    pending.push(reference);
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the retained size of each of the <code>beans</code>: the size of the objects which are reachable from this bean only.
+     * The walk doesn't continue at other beans. Objects which are reachable from several beans (e.g. a logger or a mock handler) are
+     * not counted for any bean but returned as shared size. Every object is walked at most twice.
+     *
+     * @param beans
+     *            identity based set of the beans
+     * @param retainedSizes
+     *            identity based map which is filled with the retained size of each bean
+     * @return the estimated size of the objects which are reachable from several beans
+     */
+    long estimateRetained(Set<Object> beans, Map<Object, Long> retainedSizes) {
+        // Bean which reaches an object or SHARED. Everything reachable from a SHARED object is SHARED as well.
+        Map<Object, Object> object2Owner = new IdentityHashMap<>();
+        Deque<Object> pending = new ArrayDeque<>();
+        List<Object> references = new ArrayList<>();
+        for (Object bean : beans) {
+            object2Owner.put(bean, bean);
+            pending.push(bean);
+            while (!pending.isEmpty()) {
+                references.clear();
+                addReferences(pending.pop(), references);
+                for (Object reference : references) {
+                    if (beans.contains(reference)) {
+                        continue;
+                    }
+                    Object owner = object2Owner.get(reference);
+                    if (owner == null) {
+                        object2Owner.put(reference, bean);
+                        pending.push(reference);
+                    } else if (owner != bean && owner != SHARED) {
+                        // Reached by another bean before, its references are reached by that bean as well
+                        object2Owner.put(reference, SHARED);
+                        pending.push(reference);
+                    }
+                }
+            }
+        }
+
+        long sharedSize = 0;
+        for (Entry<Object, Object> entry : object2Owner.entrySet()) {
+            long size = getSize(entry.getKey());
+            Object owner = entry.getValue();
+            if (owner == SHARED) {
+                sharedSize += size;
+            } else {
+                Long retainedSize = retainedSizes.get(owner);
+                retainedSizes.put(owner, retainedSize == null ? size : retainedSize + size);
+            }
+        }
+        return sharedSize;
+    }
+
+    /**
+     * @return the estimated size of <code>object</code> without the objects it references. For maps, collections and char sequences
+     *         whose fields cannot be walked the entries and characters are included.
+     */
+    private long getSize(Object object) {
+        Class<?> clazz = object.getClass();
+        if (clazz.isArray()) {
+            Class<?> componentType = clazz.getComponentType();
+            int elementSize = componentType.isPrimitive() ? getFieldSize(componentType) : REFERENCE_SIZE;
+            return align(ARRAY_HEADER_SIZE + (long) Array.getLength(object) * elementSize);
+        }
+
+        long size = getShallowSize(clazz);
+        if (getReferenceFields(clazz) == null) {
+            if (object instanceof Map) {
+                size += (long) COLLECTION_ENTRY_SIZE * ((Map<?, ?>) object).size();
+            } else if (object instanceof Collection) {
+                size += (long) COLLECTION_ENTRY_SIZE * ((Collection<?>) object).size();
+            } else if (object instanceof CharSequence) {
+                size += align(ARRAY_HEADER_SIZE + (long) CHAR_SIZE * ((CharSequence) object).length());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Adds the objects referenced by <code>object</code> which are counted to <code>references</code>.
+     */
+    private void addReferences(Object object, List<Object> references) {
+        Class<?> clazz = object.getClass();
+        if (clazz.isArray()) {
+            if (!clazz.getComponentType().isPrimitive()) {
+                for (int i = 0; i < Array.getLength(object); i++) {
+                    addReference(Array.get(object, i), references);
+                }
+            }
+            return;
+        }
+
+        Field[] referenceFields = getReferenceFields(clazz);
+        if (referenceFields != null) {
+            for (Field field : referenceFields) {
+                try {
+                    addReference(field.get(object), references);
+                } catch (IllegalAccessException e) {
+                    // Made accessible before, cannot happen
+                }
+            }
+        } else if (object instanceof Map) {
+            for (Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+                addReference(entry.getKey(), references);
+                addReference(entry.getValue(), references);
+            }
+        } else if (object instanceof Collection) {
+            for (Object element : (Collection<?>) object) {
+                addReference(element, references);
+            }
+        }
+    }
+
+    private static void addReference(Object reference, List<Object> references) {
+        if (isCounted(reference)) {
+            references.add(reference);
+        }
+    }
+
+    /**
+     * Classes, class loaders and threads are shared by the whole application and are not counted.
+     */
+    private static boolean isCounted(Object object) {
+        return object != null && !(object instanceof Class) && !(object instanceof ClassLoader) && !(object instanceof Thread);
+    }
+
+    private long getShallowSize(Class<?> clazz) {
+        Long shallowSize = class2ShallowSize.get(clazz);
+        if (shallowSize != null) {
+            return shallowSize;
+        }
+
+        long fieldsSize = 0;
+        for (Class<?> type = clazz; type != null; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    fieldsSize += getFieldSize(field.getType());
+                }
+            }
+        }
+        shallowSize = align(OBJECT_HEADER_SIZE + fieldsSize);
+        class2ShallowSize.put(clazz, shallowSize);
+        return shallowSize;
+    }
+
+    /**
+     * @return the non-static reference fields of <code>clazz</code> and its super classes or <code>null</code> if they cannot be made
+     *         accessible
+     */
+    private Field[] getReferenceFields(Class<?> clazz) {
+        if (class2ReferenceFields.containsKey(clazz)) {
+            return class2ReferenceFields.get(clazz);
+        }
+
+        List<Field> referenceFields = new ArrayList<>();
+        try {
+            for (Class<?> type = clazz; type != null; type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+                        field.setAccessible(true);
+                        referenceFields.add(field);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // SecurityException or, on Java 9 and later, InaccessibleObjectException
+            class2ReferenceFields.put(clazz, null);
+            return null;
+        }
+
+        Field[] fields = referenceFields.toArray(new Field[referenceFields.size()]);
+        class2ReferenceFields.put(clazz, fields);
+        return fields;
+    }
+
+    private static int getFieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE_SIZE;
+    }
+
+    private static long align(long size) {
+        return (size + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT * OBJECT_ALIGNMENT;
+    }
+}
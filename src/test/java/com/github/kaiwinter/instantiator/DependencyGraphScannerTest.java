@@ -0,0 +1,93 @@
+package com.github.kaiwinter.instantiator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.github.kaiwinter.instantiator.testmodel.graph.api.Other;
+import com.github.kaiwinter.instantiator.testmodel.graph.api.Svc;
+import com.github.kaiwinter.instantiator.testmodel.graph.api.sub.OtherImpl;
+import com.github.kaiwinter.instantiator.testmodel.graph.api.sub.X;
+import com.github.kaiwinter.instantiator.testmodel.graph.impl.SvcImpl;
+import com.github.kaiwinter.instantiator.testmodel.graph.web.Y;
+import com.github.kaiwinter.instantiator.testmodel.noimpl.HaveNoImplementation;
+import com.github.kaiwinter.instantiator.testmodel.noimpl.impl.StartingServiceWithInterfaceWithNoImplementation;
+
+public class DependencyGraphScannerTest {
+
+    /**
+     * Only the common package of the interface and the declaring class is scanned.
+     */
+    @Test
+    public void testScanLimitedToCommonPackage() {
+        DependencyGraphScanner scanner = new DependencyGraphScanner();
+        Set<Class<?>> implementations = scanner.getSubTypesOf(Svc.class, Y.class);
+
+        assertEquals(Collections.<Class<?>> singleton(SvcImpl.class), implementations);
+        assertEquals(1, scanner.getScannedUnits().size());
+        assertTrue(scanner.getScannedUnits().iterator().next().endsWith("!com.github.kaiwinter.instantiator.testmodel.graph"));
+    }
+
+    /**
+     * A package whose parent package was scanned before isn't scanned again.
+     */
+    @Test
+    public void testSubPackageNotScannedAgain() {
+        DependencyGraphScanner scanner = new DependencyGraphScanner();
+        scanner.getSubTypesOf(Svc.class, Y.class);
+        Set<Class<?>> implementations = scanner.getSubTypesOf(Other.class, X.class);
+
+        assertEquals(Collections.<Class<?>> singleton(OtherImpl.class), implementations);
+        assertEquals(1, scanner.getScannedUnits().size());
+    }
+
+    /**
+     * The implementation is outside of the common package, the search is widened to the parent package.
+     */
+    @Test
+    public void testWidenedToParentPackage() {
+        DependencyGraphScanner scanner = new DependencyGraphScanner();
+        Set<Class<?>> implementations = scanner.getSubTypesOf(Svc.class, X.class);
+
+        assertEquals(Collections.<Class<?>> singleton(SvcImpl.class), implementations);
+        for (String scannedUnit : scanner.getScannedUnits()) {
+            assertTrue(scannedUnit, scannedUnit.endsWith("!com.github.kaiwinter.instantiator.testmodel.graph")
+                    || scannedUnit.endsWith("!com.github.kaiwinter.instantiator.testmodel.graph.api"));
+        }
+    }
+
+    /**
+     * There is no implementation, the search is widened to the whole classpath.
+     */
+    @Test
+    public void testWidenedToWholeClasspath() {
+        DependencyGraphScanner scanner = new DependencyGraphScanner();
+        Set<Class<?>> implementations = scanner.getSubTypesOf(HaveNoImplementation.class,
+                StartingServiceWithInterfaceWithNoImplementation.class);
+
+        assertTrue(implementations.isEmpty());
+        boolean jarScanned = false;
+        for (String scannedUnit : scanner.getScannedUnits()) {
+            jarScanned |= scannedUnit.contains(".jar");
+        }
+        assertTrue(jarScanned);
+    }
+
+    /**
+     * The classes of the JDK cannot be scanned, implementations of JDK interfaces are searched near the declaring class.
+     */
+    @Test
+    public void testJdkInterface() {
+        DependencyGraphScanner scanner = new DependencyGraphScanner();
+        scanner.getSubTypesOf(Runnable.class, X.class);
+
+        assertTrue(scanner.getScannedUnits().iterator().next().endsWith("!com.github.kaiwinter.instantiator.testmodel.graph.api.sub"));
+        for (String scannedUnit : scanner.getScannedUnits()) {
+            assertTrue(scannedUnit, scannedUnit.startsWith("file:") || scannedUnit.startsWith("jar:"));
+        }
+    }
+}
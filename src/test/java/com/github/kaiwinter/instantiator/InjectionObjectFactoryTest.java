@@ -5,15 +5,42 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Inject;
+
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ConstPool;
+
 import com.github.kaiwinter.instantiator.LookupContext.PackageScope;
 import com.github.kaiwinter.instantiator.testmodel.customannotation.MyInjectionAnnotation;
 import com.github.kaiwinter.instantiator.testmodel.customannotation.StartingServiceWithCustomAnnotation;
+import com.github.kaiwinter.instantiator.testmodel.cycle.CycleBeanA;
 import com.github.kaiwinter.instantiator.testmodel.diffpackage2.DifferentPackageImpl;
 import com.github.kaiwinter.instantiator.testmodel.diffpackage2.DifferentPackageServiceImpl;
+import com.github.kaiwinter.instantiator.testmodel.graph.api.sub.X;
+import com.github.kaiwinter.instantiator.testmodel.graph.impl.SvcImpl;
+import com.github.kaiwinter.instantiator.testmodel.graph.web.Y;
 import com.github.kaiwinter.instantiator.testmodel.inject.ServiceBean;
+import com.github.kaiwinter.instantiator.testmodel.inject.impl.DaoBeanImpl;
+import com.github.kaiwinter.instantiator.testmodel.inject.impl.ServiceBeanImpl;
 import com.github.kaiwinter.instantiator.testmodel.inject.impl.StartingServiceAsInject;
 import com.github.kaiwinter.instantiator.testmodel.mock.ServiceMockBean;
 import com.github.kaiwinter.instantiator.testmodel.mock.impl.StartingServiceWithMock;
@@ -180,4 +207,193 @@ public class InjectionObjectFactoryTest {
         DifferentPackageServiceImpl instance = factory.getInstance(DifferentPackageServiceImpl.class);
         assertTrue(instance.differentPackageInterface instanceof DifferentPackageImpl);
     }
+
+    /**
+     * The implementations are looked up along the dependency graph of the requested class.
+     */
+    @Test
+    public void testDependencyGraph() {
+        InjectionObjectFactory factory = new InjectionObjectFactory(new LookupContext(PackageScope.DEPENDENCY_GRAPH));
+        StartingServiceAsInject instance = factory.getInstance(StartingServiceAsInject.class);
+        assertNotNull(instance.getServiceBeanInterface());
+        assertNotNull(instance.getServiceBeanInterface().getDaoInterface());
+    }
+
+    /**
+     * The implementation of an interface is located in a different package which is found by the common package of the interface
+     * and the class declaring the field.
+     */
+    @Test
+    public void testDependencyGraphDifferentPackage() {
+        InjectionObjectFactory factory = new InjectionObjectFactory(new LookupContext(PackageScope.DEPENDENCY_GRAPH));
+        DifferentPackageServiceImpl instance = factory.getInstance(DifferentPackageServiceImpl.class);
+        assertTrue(instance.differentPackageInterface instanceof DifferentPackageImpl);
+    }
+
+    /**
+     * The scope of the lookup depends on the class declaring the field. The implementation isn't in the scope of
+     * <code>X</code>, looking it up for <code>X</code> first must not prevent it from being found for <code>Y</code>.
+     */
+    @Test
+    public void testDependencyGraphScopeOrder() {
+        InjectionObjectFactory factory = new InjectionObjectFactory(new LookupContext(PackageScope.DEPENDENCY_GRAPH));
+        X x = factory.getInstance(X.class);
+        Y y = factory.getInstance(Y.class);
+        assertTrue(x.getSvc() instanceof SvcImpl);
+        assertTrue(y.getSvc() instanceof SvcImpl);
+    }
+
+    /**
+     * More types than the initial capacity of the factory are registered, cached instances must survive the growth.
+     */
+    @Test
+    public void testManyTypes() {
+        InjectionObjectFactory factory = new InjectionObjectFactory();
+        Object[] objects = { "string", 1, 1L, 1.0d, 1.0f, (short) 1, (byte) 1, 'c', true, new StringBuilder(), new Object(),
+                new ArrayList<>(), new LinkedList<>(), new HashMap<>(), new TreeMap<>(),
+                new HashSet<>(), new TreeSet<>(), new Date() };
+        for (Object object : objects) {
+            factory.setImplementationForClassOrInterface(object.getClass(), object);
+        }
+
+        StartingServiceAsInject instance = factory.getInstance(StartingServiceAsInject.class);
+        assertNotNull(instance.getServiceBeanInterface().getDaoInterface());
+        for (Object object : objects) {
+            assertTrue(factory.getInstance(object.getClass()) == object);
+        }
+    }
+
+    /**
+     * Two classes reference each other. Both get the instance of the other one which was created while building the graph.
+     */
+    @Test
+    public void testCyclicDependency() {
+        CycleBeanA instance = new InjectionObjectFactory().getInstance(CycleBeanA.class);
+        assertNotNull(instance.getCycleBeanB());
+        assertTrue(instance.getCycleBeanB().getCycleBeanA() == instance);
+    }
+
+    /**
+     * The heap footprint contains the cached beans and the scan scope which was used to look up their implementations.
+     */
+    @Test
+    public void testEstimateHeapFootprint() {
+        LookupContext lookupContext = new LookupContext(PackageScope.SUBPACKAGES_ONLY);
+        InjectionObjectFactory factory = new InjectionObjectFactory(lookupContext);
+        factory.getInstance(StartingServiceAsInject.class);
+
+        HeapFootprint heapFootprint = factory.estimateHeapFootprint();
+        // Header of 12 bytes and two references of 4 bytes
+        assertEquals(24L, (long) heapFootprint.getBeanSizes().get(StartingServiceAsInject.class));
+        assertEquals(24L, (long) heapFootprint.getBeanSizes().get(ServiceBeanImpl.class));
+        // Header of 12 bytes aligned to 8 bytes
+        assertEquals(16L, (long) heapFootprint.getBeanSizes().get(DaoBeanImpl.class));
+        assertTrue(heapFootprint.getScanScopeSizes().get("com.github.kaiwinter.instantiator.testmodel.inject") > 0);
+        assertTrue(heapFootprint.getMetadataSize() >= heapFootprint.getScanScopeSizes().get("com.github.kaiwinter.instantiator.testmodel.inject"));
+        assertTrue(heapFootprint.getTotalSize() > heapFootprint.getMetadataSize());
+    }
+
+    /**
+     * The heap footprint contains a size for each unit scanned for {@link PackageScope#DEPENDENCY_GRAPH}.
+     */
+    @Test
+    public void testEstimateHeapFootprintDependencyGraph() {
+        InjectionObjectFactory factory = new InjectionObjectFactory(new LookupContext(PackageScope.DEPENDENCY_GRAPH));
+        factory.getInstance(StartingServiceAsInject.class);
+
+        Map<String, Long> scanScopeSizes = factory.estimateHeapFootprint().getScanScopeSizes();
+        assertEquals(1, scanScopeSizes.size());
+        String scanUnit = scanScopeSizes.keySet().iterator().next();
+        assertTrue(scanUnit.endsWith("!com.github.kaiwinter.instantiator.testmodel.inject"));
+        assertTrue(scanScopeSizes.get(scanUnit) > 0);
+    }
+
+    /**
+     * A bean which is cached for two types is reported once. An object which is referenced by two beans is reported as shared.
+     */
+    @Test
+    public void testEstimateHeapFootprintSharedObject() {
+        StringBuilder sharedObject = new StringBuilder("shared");
+        ArrayList<StringBuilder> bean1 = new ArrayList<>(Arrays.asList(sharedObject));
+        LinkedList<StringBuilder> bean2 = new LinkedList<>(Arrays.asList(sharedObject));
+
+        InjectionObjectFactory factory = new InjectionObjectFactory();
+        factory.setImplementationForClassOrInterface(ArrayList.class, bean1);
+        factory.setImplementationForClassOrInterface(List.class, bean1);
+        factory.setImplementationForClassOrInterface(LinkedList.class, bean2);
+
+        HeapFootprint heapFootprint = factory.estimateHeapFootprint();
+        assertEquals(2, heapFootprint.getBeanSizes().size());
+        assertTrue(heapFootprint.getBeanSizes().containsKey(ArrayList.class));
+        assertTrue(heapFootprint.getBeanSizes().containsKey(LinkedList.class));
+        assertTrue(heapFootprint.getSharedBeanSize() > 0);
+    }
+
+    /**
+     * A chain of classes which is deeper than the call stack of the thread would allow with recursion.
+     */
+    @Test
+    public void testDeepObjectGraph() throws Exception {
+        final int depth = 10_000;
+        final Class<?> firstClass = createClassChain(depth);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(new InjectionObjectFactory().getInstance(firstClass));
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        }, "small-stack", 256 * 1024);
+        thread.start();
+        thread.join();
+
+        assertNull(error.get());
+        int length = 1;
+        for (Object instance = result.get(); instance.getClass().getDeclaredFields().length > 0; length++) {
+            instance = instance.getClass().getDeclaredField("next").get(instance);
+            assertNotNull(instance);
+        }
+        assertEquals(depth, length);
+    }
+
+    /**
+     * Generates the classes <code>Chain0</code> to <code>Chain(depth - 1)</code>, each class has an injected field of the next one.
+     *
+     * @return the first class of the chain
+     */
+    private static Class<?> createClassChain(int depth) throws Exception {
+        ClassPool classPool = new ClassPool(true);
+        final Map<String, byte[]> name2Bytecode = new HashMap<>();
+        for (int i = depth - 1; i >= 0; i--) {
+            CtClass ctClass = classPool.makeClass("com.github.kaiwinter.instantiator.testmodel.chain.Chain" + i);
+            if (i < depth - 1) {
+                CtField field = new CtField(classPool.get("com.github.kaiwinter.instantiator.testmodel.chain.Chain" + (i + 1)), "next", ctClass);
+                field.setModifiers(javassist.Modifier.PUBLIC);
+                ConstPool constPool = ctClass.getClassFile().getConstPool();
+                AnnotationsAttribute annotations = new AnnotationsAttribute(constPool, AnnotationsAttribute.visibleTag);
+                annotations.addAnnotation(new javassist.bytecode.annotation.Annotation(Inject.class.getName(), constPool));
+                field.getFieldInfo().addAttribute(annotations);
+                ctClass.addField(field);
+            }
+            ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+            name2Bytecode.put(ctClass.getName(), ctClass.toBytecode());
+        }
+
+        ClassLoader classLoader = new ClassLoader(InjectionObjectFactoryTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytecode = name2Bytecode.get(name);
+                if (bytecode == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytecode, 0, bytecode.length);
+            }
+        };
+        return classLoader.loadClass("com.github.kaiwinter.instantiator.testmodel.chain.Chain0");
+    }
 }
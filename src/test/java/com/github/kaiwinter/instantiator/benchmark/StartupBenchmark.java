@@ -0,0 +1,26 @@
+package com.github.kaiwinter.instantiator.benchmark;
+
+import com.github.kaiwinter.instantiator.InjectionObjectFactory;
+import com.github.kaiwinter.instantiator.LookupContext;
+import com.github.kaiwinter.instantiator.LookupContext.PackageScope;
+import com.github.kaiwinter.instantiator.testmodel.inject.impl.StartingServiceAsInject;
+
+/**
+ * Measures the cold start of a factory: creating it and resolving one object graph. Used by <code>appcds-startup.sh</code> to
+ * compare the startup time with and without an AppCDS archive. Run with <code>-XX:DumpLoadedClassList</code> (or
+ * <code>-XX:ArchiveClassesAtExit</code> on Java 13 and later) it is the training run which records the classes for the archive.
+ */
+public final class StartupBenchmark {
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        // The classes are packaged in jars for CDS, the scan has to start from the classes of the object graph
+        InjectionObjectFactory factory = new InjectionObjectFactory(new LookupContext(PackageScope.DEPENDENCY_GRAPH));
+        factory.getInstance(StartingServiceAsInject.class);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Resolved object graph in " + elapsedMillis + " ms");
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.kaiwinter.instantiator.testmodel.cycle;
+
+import javax.inject.Inject;
+
+public class CycleBeanA {
+
+    @Inject
+    private CycleBeanB cycleBeanB;
+
+    public CycleBeanB getCycleBeanB() {
+        return cycleBeanB;
+    }
+}
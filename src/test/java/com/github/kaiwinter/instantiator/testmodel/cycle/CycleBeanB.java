@@ -0,0 +1,13 @@
+package com.github.kaiwinter.instantiator.testmodel.cycle;
+
+import javax.inject.Inject;
+
+public class CycleBeanB {
+
+    @Inject
+    private CycleBeanA cycleBeanA;
+
+    public CycleBeanA getCycleBeanA() {
+        return cycleBeanA;
+    }
+}
@@ -0,0 +1,5 @@
+package com.github.kaiwinter.instantiator.testmodel.graph.api;
+
+public interface Svc {
+
+}
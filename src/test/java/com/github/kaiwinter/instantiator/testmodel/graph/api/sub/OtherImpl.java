@@ -0,0 +1,7 @@
+package com.github.kaiwinter.instantiator.testmodel.graph.api.sub;
+
+import com.github.kaiwinter.instantiator.testmodel.graph.api.Other;
+
+public class OtherImpl implements Other {
+
+}
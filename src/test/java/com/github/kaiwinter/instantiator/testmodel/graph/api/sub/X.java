@@ -0,0 +1,15 @@
+package com.github.kaiwinter.instantiator.testmodel.graph.api.sub;
+
+import javax.inject.Inject;
+
+import com.github.kaiwinter.instantiator.testmodel.graph.api.Svc;
+
+public class X {
+
+    @Inject
+    private Svc svc;
+
+    public Svc getSvc() {
+        return svc;
+    }
+}
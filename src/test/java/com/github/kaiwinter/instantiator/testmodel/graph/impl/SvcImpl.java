@@ -0,0 +1,7 @@
+package com.github.kaiwinter.instantiator.testmodel.graph.impl;
+
+import com.github.kaiwinter.instantiator.testmodel.graph.api.Svc;
+
+public class SvcImpl implements Svc {
+
+}
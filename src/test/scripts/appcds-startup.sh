@@ -0,0 +1,46 @@
+#!/bin/sh
+# Compares the startup time of the factory with and without an AppCDS archive (Linux, JDK 10+).
+#
+# 1. Runs StartupBenchmark as training run, the JVM records every class it loads (-XX:DumpLoadedClassList).
+# 2. Builds a shared archive from this class list.
+# 3. Checks that the classes of the factory, Reflections, javassist, Guava and logging are loaded from the archive.
+# 4. Times runs with the default JDK archive and with the factory archive.
+#
+# Usage: src/test/scripts/appcds-startup.sh [runs]
+set -e
+
+RUNS=${1:-5}
+WORK=target/appcds
+MAIN=com.github.kaiwinter.instantiator.benchmark.StartupBenchmark
+mkdir -p $WORK
+
+mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=$WORK/classpath.txt
+# CDS only archives classes from jar files
+jar cf $WORK/classes.jar -C target/classes .
+jar cf $WORK/test-classes.jar -C target/test-classes .
+CP=$WORK/classes.jar:$WORK/test-classes.jar:$(cat $WORK/classpath.txt)
+
+java -cp "$CP" -XX:DumpLoadedClassList=$WORK/classes.lst $MAIN > /dev/null
+java -Xshare:dump -XX:SharedClassListFile=$WORK/classes.lst -XX:SharedArchiveFile=$WORK/factory.jsa -cp "$CP" > /dev/null
+
+java -Xlog:class+load=info -XX:SharedArchiveFile=$WORK/factory.jsa -cp "$CP" $MAIN > $WORK/class-load.log
+grep '\[class,load\]' $WORK/class-load.log | grep -E 'kaiwinter|reflections|javassist|google|slf4j|logback' > $WORK/loaded.log
+NOT_SHARED=$(grep -vc 'shared objects file' $WORK/loaded.log || true)
+echo "$(wc -l < $WORK/loaded.log) classes of the factory and its libraries loaded, $NOT_SHARED not from the archive"
+grep -v 'shared objects file' $WORK/loaded.log || true
+
+run() {
+    START=$(date +%s%N)
+    java "$@" -cp "$CP" $MAIN > /dev/null
+    echo $(( ($(date +%s%N) - START) / 1000000 ))
+}
+
+for ARCHIVE in "-Xshare:auto" "-XX:SharedArchiveFile=$WORK/factory.jsa"; do
+    TOTAL=0
+    i=0
+    while [ $i -lt $RUNS ]; do
+        TOTAL=$((TOTAL + $(run $ARCHIVE)))
+        i=$((i + 1))
+    done
+    echo "$ARCHIVE: $((TOTAL / RUNS)) ms average JVM startup and resolution over $RUNS runs"
+done